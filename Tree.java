@@ -1,171 +1,2006 @@
-import org.jsoup.Connection;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
+import org.jsoup.parser.Parser;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.net.MalformedURLException;
-import java.net.ProtocolException;
 import java.util.Scanner;
 import java.io.*;
 import java.util.*;
 import java.io.IOException;
-import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
 import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class Tree {
+	public static final int CONCURRENCY = Integer.getInteger("tree.concurrency", 4);
+	public static final int COURSE_CONCURRENCY = Integer.getInteger("tree.courses", 4);
+	public static final boolean PRUNE = Boolean.getBoolean("tree.prune");
+	public static final boolean AUTH_FIRST = !Boolean.getBoolean("tree.anonymousFirst");
+	public static final boolean NAMES = Boolean.getBoolean("tree.names");
+	public static final Crawler.Order ORDER = Crawler.Order.valueOf(System.getProperty("tree.order", "dfs").toUpperCase());
+	private static final Map<String, Validator> validators = loadValidators();
+	private static final Classifier classifier = Classifier.load(System.getProperty("tree.filters", "filters.txt"));
+
+	public static class Validator implements Serializable {
+		private static final long serialVersionUID = -7320470224296160523L;
+
+		public String etag;
+		public String lastModified;
+		public String hash;
+	}
+
+	// Every request to eclass goes through here: one pooled keep-alive client
+	// (HTTP/2 when the server offers it), gzip/deflate responses, timeouts from
+	// -Dtree.connectTimeout and -Dtree.timeout (seconds), and a per-host Limiter.
+	// GET and HEAD are retried with jittered exponential backoff on I/O errors,
+	// 429 and 5xx, up to -Dtree.retries attempts.
+	public static class Http {
+		public static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(Integer.getInteger("tree.connectTimeout", 30));
+		public static final Duration TIMEOUT = Duration.ofSeconds(Integer.getInteger("tree.timeout", 60));
+		public static final int RETRIES = Integer.getInteger("tree.retries", 4);
+		// requests per second per host; 0 or less turns pacing off
+		public static final double RATE = Double.parseDouble(System.getProperty("tree.rate", "10"));
+
+		private static final HttpClient client = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_2)
+				.followRedirects(HttpClient.Redirect.NORMAL)
+				.connectTimeout(CONNECT_TIMEOUT)
+				.build();
+		private static final Map<String, Limiter> limiters = new ConcurrentHashMap<>();
+
+		// Token bucket of RATE requests per second (bursts up to CONCURRENCY) in front of
+		// an adaptive concurrency limit: it grows by one per limit's worth of healthy
+		// responses, up to CONCURRENCY, and is cut when the server answers 429/5xx,
+		// fails, or gets markedly slower than its usual latency. Cheap responses (HEAD,
+		// 304) and full pages are timed separately, each against the median of its
+		// recent samples, and the limit is cut at most once per limit's worth of
+		// responses, so one slow or failing round trip counts once.
+		public static class Limiter {
+			private static final int SAMPLES = 64;
+
+			private final ReentrantLock lock = new ReentrantLock();
+			private final Condition released = lock.newCondition();
+			private double limit = Math.max(1, CONCURRENCY);
+			private int inFlight;
+			private double tokens = Math.max(1, CONCURRENCY);
+			private long refilled = System.nanoTime();
+			private final Latency pages = new Latency();
+			private final Latency cheap = new Latency();
+			private long responses;
+			private long nextCut;
+
+			private static class Latency {
+				private final double[] samples = new double[SAMPLES];
+				private int count;
+				private double smoothed;
+
+				// true when the recent latency is more than twice the usual one
+				boolean slow(double millis) {
+					samples[count++ % SAMPLES] = millis;
+					smoothed = count == 1 ? millis : 0.8 * smoothed + 0.2 * millis;
+					if (count < 8) {
+						return false;
+					}
+					double[] sorted = Arrays.copyOf(samples, Math.min(count, SAMPLES));
+					Arrays.sort(sorted);
+					return smoothed > 2 * sorted[sorted.length / 2];
+				}
+			}
+
+			public void acquire() throws InterruptedException {
+				long delay = 0;
+				lock.lock();
+				try {
+					if (RATE > 0) {
+						long now = System.nanoTime();
+						tokens = Math.min(Math.max(1, CONCURRENCY), tokens + (now - refilled) / 1e9 * RATE);
+						refilled = now;
+						// a negative balance is a reservation: wait until it has been paid off
+						tokens -= 1;
+						delay = tokens >= 0 ? 0 : (long) (-tokens / RATE * 1e9);
+					}
+				} finally {
+					lock.unlock();
+				}
+				if (delay > 0) {
+					TimeUnit.NANOSECONDS.sleep(delay);
+				}
+				lock.lock();
+				try {
+					while (inFlight >= (int) limit) {
+						released.await();
+					}
+					inFlight++;
+				} finally {
+					lock.unlock();
+				}
+			}
+
+			public void release(long nanos, boolean overloaded, boolean light) {
+				lock.lock();
+				try {
+					inFlight--;
+					responses++;
+					boolean slow = (light ? cheap : pages).slow(nanos / 1e6);
+					if ((overloaded || slow) && responses >= nextCut) {
+						nextCut = responses + (long) Math.ceil(limit);
+						limit = Math.max(1, overloaded ? limit / 2 : limit * 0.9);
+					} else if (!overloaded && !slow) {
+						limit = Math.min(Math.max(1, CONCURRENCY), limit + 1 / limit);
+					}
+					released.signalAll();
+				} finally {
+					lock.unlock();
+				}
+			}
+		}
+
+		public static class Response {
+			public final int status;
+			public final HttpHeaders headers;
+			public final byte[] body;
+
+			Response(int status, HttpHeaders headers, byte[] body) {
+				this.status = status;
+				this.headers = headers;
+				this.body = body;
+			}
+
+			public String header(String name) {
+				return headers.firstValue(name).orElse(null);
+			}
+
+			public String text() {
+				Matcher matcher = CHARSET.matcher(headers.firstValue("Content-Type").orElse(""));
+				Charset charset = StandardCharsets.UTF_8;
+				if (matcher.find() && Charset.isSupported(matcher.group(1))) {
+					charset = Charset.forName(matcher.group(1));
+				}
+				return new String(body, charset);
+			}
+
+			public String cookie(String name) {
+				for (String cookie : headers.allValues("Set-Cookie")) {
+					if (cookie.startsWith(name + "=")) {
+						int end = cookie.indexOf(';');
+						return cookie.substring(name.length() + 1, end < 0 ? cookie.length() : end);
+					}
+				}
+				return null;
+			}
+		}
+
+		private static final Pattern CHARSET = Pattern.compile("charset=\"?([^\";]+)");
+
+		// Like jsoup, error statuses are thrown; 304 is returned for conditional requests.
+		public static Response get(String url, String cookie, Map<String, String> headers) throws IOException {
+			HttpRequest.Builder request = HttpRequest.newBuilder(uri(url)).GET();
+			headers.forEach(request::header);
+			Response response = send(request, url, cookie, true);
+			if (response.status >= 400) {
+				throw new IOException("HTTP " + response.status + " fetching " + url);
+			}
+			return response;
+		}
+
+		public static Response head(String url, String cookie) throws IOException {
+			return send(HttpRequest.newBuilder(uri(url)).method("HEAD", HttpRequest.BodyPublishers.noBody()), url, cookie, true);
+		}
+
+		public static Response post(String url, String cookie, Map<String, String> form) throws IOException {
+			StringBuilder body = new StringBuilder();
+			for (Map.Entry<String, String> field : form.entrySet()) {
+				if (body.length() > 0) {
+					body.append('&');
+				}
+				body.append(URLEncoder.encode(field.getKey(), StandardCharsets.UTF_8)).append('=')
+						.append(URLEncoder.encode(field.getValue(), StandardCharsets.UTF_8));
+			}
+			HttpRequest.Builder request = HttpRequest.newBuilder(uri(url))
+					.header("Content-Type", "application/x-www-form-urlencoded")
+					.POST(HttpRequest.BodyPublishers.ofString(body.toString()));
+			return send(request, url, cookie, false);
+		}
+
+		private static Response send(HttpRequest.Builder request, String url, String cookie, boolean idempotent) throws IOException {
+			request.timeout(TIMEOUT).header("Accept-Encoding", "gzip, deflate");
+			if (cookie != null) {
+				request.header("Cookie", "PHPSESSID=" + cookie);
+			}
+			Limiter limiter = limiter(url);
+			for (int attempt = 1; ; attempt++) {
+				long delay;
+				boolean overloaded = true;
+				boolean light = false;
+				long start = 0;
+				try {
+					limiter.acquire();
+					start = System.nanoTime();
+					HttpResponse<byte[]> response = client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+					overloaded = response.statusCode() == 429 || response.statusCode() >= 500;
+					light = response.statusCode() == 304 || response.request().method().equals("HEAD");
+					if (!overloaded || !idempotent || attempt >= RETRIES) {
+						return new Response(response.statusCode(), response.headers(), decode(response));
+					}
+					delay = retryAfter(response).orElse(backoff(attempt));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException(e.getMessage());
+				} catch (IOException e) {
+					if (!idempotent || attempt >= RETRIES) {
+						throw e;
+					}
+					delay = backoff(attempt);
+				} finally {
+					if (start != 0) {
+						limiter.release(System.nanoTime() - start, overloaded, light);
+					}
+				}
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException(e.getMessage());
+				}
+			}
+		}
+
+		// Full jitter: anywhere up to 0.5s, 1s, 2s, ... capped at 30s.
+		private static long backoff(int attempt) {
+			long ceiling = Math.min(30_000, 500L << Math.min(attempt - 1, 16));
+			return ThreadLocalRandom.current().nextLong(ceiling + 1);
+		}
+
+		private static Optional<Long> retryAfter(HttpResponse<?> response) {
+			try {
+				return response.headers().firstValue("Retry-After").map(seconds -> Math.min(60_000, Long.parseLong(seconds.trim()) * 1000));
+			} catch (NumberFormatException e) {
+				// an HTTP date: fall back to our own backoff
+				return Optional.empty();
+			}
+		}
+
+		private static byte[] decode(HttpResponse<byte[]> response) throws IOException {
+			String encoding = response.headers().firstValue("Content-Encoding").orElse("identity").trim();
+			if (response.body().length == 0 || encoding.equalsIgnoreCase("identity")) {
+				return response.body();
+			}
+			InputStream in = new ByteArrayInputStream(response.body());
+			if (encoding.equalsIgnoreCase("gzip")) {
+				in = new GZIPInputStream(in);
+			} else if (encoding.equalsIgnoreCase("deflate")) {
+				in = new InflaterInputStream(in);
+			} else {
+				throw new IOException("unsupported Content-Encoding " + encoding);
+			}
+			try (InputStream decoded = in) {
+				return decoded.readAllBytes();
+			}
+		}
+
+		private static Limiter limiter(String url) {
+			String host;
+			try {
+				host = new URL(url).getHost();
+			} catch (MalformedURLException e) {
+				throw new RuntimeException(e);
+			}
+			return limiters.computeIfAbsent(host, h -> new Limiter());
+		}
+
+		// Canonical links keep non-ASCII characters as they are, and older snapshots
+		// hold hrefs as the page wrote them; characters URI.create rejects are quoted
+		// (leaving existing escapes alone), and component by component as a last resort.
+		public static URI uri(String url) {
+			try {
+				return URI.create(url);
+			} catch (IllegalArgumentException e) {
+				try {
+					return URI.create(quote(url));
+				} catch (IllegalArgumentException stillInvalid) {
+					// falls through to the component-wise quoting below
+				}
+				try {
+					URL parsed = new URL(url);
+					return new URI(parsed.getProtocol(), parsed.getUserInfo(), parsed.getHost(), parsed.getPort(), parsed.getPath(), parsed.getQuery(), parsed.getRef());
+				} catch (MalformedURLException | URISyntaxException invalid) {
+					throw new RuntimeException(invalid);
+				}
+			}
+		}
+
+		private static String quote(String url) {
+			StringBuilder quoted = new StringBuilder(url.length() + 16);
+			for (byte b : url.getBytes(StandardCharsets.UTF_8)) {
+				int c = b & 0xff;
+				if (c <= ' ' || c >= 0x7f || "\"<>\\^`{|}".indexOf(c) >= 0) {
+					quoted.append('%').append(Character.toUpperCase(Character.forDigit(c >> 4, 16)))
+							.append(Character.toUpperCase(Character.forDigit(c & 0xf, 16)));
+				} else {
+					quoted.append((char) c);
+				}
+			}
+			return quoted.toString();
+		}
+	}
+
 	public static List<String>[] links(String url) {
-		List<String> filter_words = Arrays.asList("&sort", "help.php?language=el&topic=documents", "#collapse0",
+		return links(url, false);
+	}
+
+	// When the page is already in the previous snapshot (known), it is requested
+	// conditionally and null is returned if it has not changed since then.
+	public static List<String>[] links(String url, boolean known) {
+		List<String> files = new ArrayList<>();
+		List<String> directories = new ArrayList<>();
+		@SuppressWarnings("unchecked")
+		List<String>[] array = new ArrayList[2];
+
+		Validator validator = known ? validators.get(url) : null;
+		List<String> hrefs = new ArrayList<>();
+		try {
+			// Authenticated pages are the norm, so the session cookie goes out with the
+			// first request and the anonymous round trip is only made when asked for.
+			String cookie = AUTH_FIRST ? getCookie() : null;
+			Http.Response response = request(url, cookie, validator);
+			if (response.status == 304) {
+				return null;
+			}
+			boolean login = scan(response.text(), hrefs);
+
+			if (cookie == null && login) {
+				cookie = getCookie();
+				response = request(url, cookie, validator);
+				if (response.status == 304) {
+					return null;
+				}
+				hrefs.clear();
+				login = scan(response.text(), hrefs);
+			}
+			if (login) {
+				cookie = updateCookie(cookie);
+				response = request(url, cookie, validator);
+				if (response.status == 304) {
+					return null;
+				}
+				hrefs.clear();
+				scan(response.text(), hrefs);
+			}
+
+			Validator latest = new Validator();
+			latest.etag = response.header("ETag");
+			latest.lastModified = response.header("Last-Modified");
+			latest.hash = hash(response.body);
+			validators.put(url, latest);
+			if (validator != null && latest.hash.equals(validator.hash)) {
+				return null;
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		for (String href : hrefs) {
+			switch (classifier.classify(href, url)) {
+				case Classifier.FILE:
+					files.add(canonical("https://eclass.aueb.gr"+href));
+					break;
+				case Classifier.DIRECTORY:
+					directories.add(canonical("https://eclass.aueb.gr"+href));
+					break;
+			}
+		}
+
+		array[0] = files;
+		array[1] = directories;
+
+		return array;
+	}
+
+	// The same page can be linked with its query parameters in any order and with
+	// its values encoded in different ways; every link is brought to one form so it
+	// is fetched, stored and compared only once. The fragment is dropped, parameters
+	// are sorted by name (stable, so repeated names keep their order), values are
+	// decoded and re-encoded with only the characters that would break the query
+	// escaped, and openDir loses repeated and trailing slashes.
+	public static String canonical(String url) {
+		int hash = url.indexOf('#');
+		if (hash >= 0) {
+			url = url.substring(0, hash);
+		}
+		int question = url.indexOf('?');
+		if (question < 0) {
+			return url;
+		}
+		List<String[]> parameters = new ArrayList<>();
+		for (String parameter : url.substring(question + 1).split("&")) {
+			if (parameter.isEmpty()) {
+				continue;
+			}
+			int equals = parameter.indexOf('=');
+			String name = decode(equals < 0 ? parameter : parameter.substring(0, equals));
+			String value = equals < 0 ? null : decode(parameter.substring(equals + 1));
+			if (name.equals("openDir") && value != null) {
+				value = value.replaceAll("/{2,}", "/");
+				if (value.length() > 1 && value.endsWith("/")) {
+					value = value.substring(0, value.length() - 1);
+				}
+			}
+			parameters.add(new String[] {name, value});
+		}
+		parameters.sort(Comparator.comparing(parameter -> parameter[0]));
+		StringBuilder canonical = new StringBuilder(url.length()).append(url, 0, question);
+		char separator = '?';
+		for (String[] parameter : parameters) {
+			canonical.append(separator);
+			encode(parameter[0], canonical);
+			if (parameter[1] != null) {
+				encode(parameter[1], canonical.append('='));
+			}
+			separator = '&';
+		}
+		return canonical.toString();
+	}
+
+	// Percent-decodes a query component the way PHP reads it ('+' is a space);
+	// malformed escapes are kept as they are.
+	private static String decode(String component) {
+		if (component.indexOf('%') < 0 && component.indexOf('+') < 0) {
+			return component;
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(component.length());
+		for (int i = 0; i < component.length(); i++) {
+			char c = component.charAt(i);
+			int high, low;
+			if (c == '%' && i + 2 < component.length() && (high = Character.digit(component.charAt(i + 1), 16)) >= 0
+					&& (low = Character.digit(component.charAt(i + 2), 16)) >= 0) {
+				bytes.write(high << 4 | low);
+				i += 2;
+			} else if (c == '+') {
+				bytes.write(' ');
+			} else {
+				byte[] encoded = String.valueOf(c).getBytes(StandardCharsets.UTF_8);
+				if (Character.isHighSurrogate(c) && i + 1 < component.length()) {
+					encoded = component.substring(i, i + 2).getBytes(StandardCharsets.UTF_8);
+					i++;
+				}
+				bytes.write(encoded, 0, encoded.length);
+			}
+		}
+		return bytes.toString(StandardCharsets.UTF_8);
+	}
+
+	// Escapes ASCII controls, space and the characters with a meaning in a URL;
+	// everything else, non-ASCII included, is written as is (Http.uri quotes it).
+	private static void encode(String component, StringBuilder out) {
+		for (int i = 0; i < component.length(); i++) {
+			char c = component.charAt(i);
+			if (c <= ' ' || c == 0x7f || "%&=+#?\"<>\\^`{|}[]".indexOf(c) >= 0) {
+				out.append('%').append(Character.toUpperCase(Character.forDigit(c >> 4, 16)))
+						.append(Character.toUpperCase(Character.forDigit(c & 0xf, 16)));
+			} else {
+				out.append(c);
+			}
+		}
+	}
+
+	// Classifies an href in one pass of an Aho-Corasick automaton built once from the
+	// filter words (filters.txt, one per line, replaces the defaults when present)
+	// plus the few substrings the file/directory rules look for.
+	public static class Classifier {
+		public static final int SKIP = 0;
+		public static final int FILE = 1;
+		public static final int DIRECTORY = 2;
+
+		public static final List<String> DEFAULT_FILTERS = List.of("&sort", "help.php?language=el&topic=documents", "#collapse0",
 				"info/terms.php", "info/privacy_policy.php", "announcements/?course=",
 				"/courses", "/?course=", "https://", "&openDir=%",
 				"help.php?language=en&", "topic=documents&subtopic", "creativecommons.org/licenses", "main/",
 				"#collapse1", "#", "modules/auth/lostpass.php", "modules/course_metadata/openfaculties.php",
 				"modules/usage/", "modules/message", "modules/announcements", "modules/help/", "index.php?logout=yes");
 
-		List<String> files = new ArrayList<>();
-		List<String> directories = new ArrayList<>();
-		@SuppressWarnings("unchecked")
-		List<String>[] array = new ArrayList[2];
+		private static final int FILTERED = 1;
+		private static final int EXTERNAL = 2;
+		private static final int DOWNLOAD = 4;
+		private static final int OPEN_DIR = 8;
+
+		private final char[] alphabet = new char[Character.MAX_VALUE + 1];
+		private final int[][] next;
+		private final int[] output;
+
+		public Classifier(List<String> filters) {
+			Map<String, Integer> patterns = new LinkedHashMap<>();
+			for (String filter : filters) {
+				if (!filter.isEmpty()) {
+					patterns.merge(filter, FILTERED, (a, b) -> a | b);
+				}
+			}
+			patterns.merge("http", EXTERNAL, (a, b) -> a | b);
+			patterns.merge("&download=/", DOWNLOAD, (a, b) -> a | b);
+			patterns.merge("&openDir=", OPEN_DIR, (a, b) -> a | b);
+			patterns.merge("&openDir=/", OPEN_DIR, (a, b) -> a | b);
+
+			// index 0 stands for every character that appears in no pattern
+			int size = 1;
+			for (String pattern : patterns.keySet()) {
+				for (char c : pattern.toCharArray()) {
+					if (alphabet[c] == 0) {
+						alphabet[c] = (char) size++;
+					}
+				}
+			}
+
+			List<int[]> trie = new ArrayList<>();
+			List<Integer> outputs = new ArrayList<>();
+			trie.add(new int[size]);
+			outputs.add(0);
+			for (Map.Entry<String, Integer> pattern : patterns.entrySet()) {
+				int state = 0;
+				for (char c : pattern.getKey().toCharArray()) {
+					if (trie.get(state)[alphabet[c]] == 0) {
+						trie.get(state)[alphabet[c]] = trie.size();
+						trie.add(new int[size]);
+						outputs.add(0);
+					}
+					state = trie.get(state)[alphabet[c]];
+				}
+				outputs.set(state, outputs.get(state) | pattern.getValue());
+			}
+
+			next = trie.toArray(new int[0][]);
+			output = new int[next.length];
+			for (int i = 0; i < output.length; i++) {
+				output[i] = outputs.get(i);
+			}
+
+			// breadth-first failure links, folded into the transitions so matching never backtracks
+			int[] fail = new int[next.length];
+			ArrayDeque<Integer> queue = new ArrayDeque<>();
+			for (int a = 0; a < size; a++) {
+				if (next[0][a] != 0) {
+					queue.add(next[0][a]);
+				}
+			}
+			while (!queue.isEmpty()) {
+				int state = queue.poll();
+				output[state] |= output[fail[state]];
+				for (int a = 0; a < size; a++) {
+					int child = next[state][a];
+					if (child != 0) {
+						fail[child] = next[fail[state]][a];
+						queue.add(child);
+					} else {
+						next[state][a] = next[fail[state]][a];
+					}
+				}
+			}
+		}
+
+		public static Classifier load(String filename) {
+			File file = new File(filename);
+			if (!file.exists()) {
+				return new Classifier(DEFAULT_FILTERS);
+			}
+			List<String> filters = new ArrayList<>();
+			try {
+				Scanner scanner = new Scanner(file, StandardCharsets.UTF_8);
+				while (scanner.hasNextLine()) {
+					String line = scanner.nextLine().trim();
+					if (!line.isEmpty()) {
+						filters.add(line);
+					}
+				}
+				scanner.close();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			return new Classifier(filters);
+		}
+
+		public int classify(String href, String url) {
+			if (href.isEmpty() || href.equals("/") || href.equals(url)) {
+				return SKIP;
+			}
+			int state = 0;
+			int seen = 0;
+			int lastDot = -1;
+			for (int i = 0; i < href.length(); i++) {
+				char c = href.charAt(i);
+				if (c == '.') {
+					lastDot = i;
+				}
+				state = next[state][alphabet[c]];
+				seen |= output[state];
+				if ((seen & FILTERED) != 0) {
+					return SKIP;
+				}
+			}
+			// an href ending in "&openDir=" or "&openDir=/" points back at the course root
+			if ((seen & EXTERNAL) != 0 || (output[state] & OPEN_DIR) != 0) {
+				return SKIP;
+			}
+			if (lastDot >= 0 && lastDot >= href.length() - 6) {
+				return FILE;
+			}
+			return (seen & DOWNLOAD) != 0 ? SKIP : DIRECTORY;
+		}
+	}
+
+	// One pass over the raw page instead of building a DOM and serializing it back:
+	// collects every <a href> value in document order and reports whether the login
+	// marker appears. Comments are skipped and script/style bodies are not parsed for tags.
+	public static boolean scan(String html, List<String> hrefs) {
+		boolean login = false;
+		String rawText = null;
+		int n = html.length();
+		for (int i = 0; i < n; i++) {
+			char c = html.charAt(i);
+			if (c == 'Σ') {
+				login |= html.startsWith("Σύνδεση", i);
+			} else if (c != '<') {
+				continue;
+			} else if (rawText != null) {
+				if (html.startsWith("/", i + 1) && isTag(html, i + 2, rawText) && !rawText.equals("plaintext")) {
+					rawText = null;
+				}
+			} else if (html.startsWith("!--", i + 1)) {
+				int end = html.indexOf("-->", i + 4);
+				i = end < 0 ? n : end + 2;
+			} else if (isTag(html, i + 1, "a")) {
+				i = attributes(html, i + 2, hrefs);
+			} else if (i + 1 < n && isLetter(html.charAt(i + 1))) {
+				for (String tag : RAW_TEXT) {
+					// jsoup reads an unclosed textarea or title as markup after all
+					if (isTag(html, i + 1, tag) && (!RCDATA.contains(tag) || closed(html, i + 1, tag))) {
+						rawText = tag;
+						break;
+					}
+				}
+				// any other tag's attributes are skipped whole, so markup quoted in
+				// an attribute value (alt, title, tooltips) is not taken for a link
+				int name = i + 1;
+				while (name < n && !Character.isWhitespace(html.charAt(name)) && html.charAt(name) != '>' && html.charAt(name) != '/') {
+					name++;
+				}
+				int end = attributes(html, name, null);
+				// the login marker may sit in an attribute, e.g. a submit button's value
+				for (int k = name; k < end && !login; k++) {
+					login = html.charAt(k) == 'Σ' && html.startsWith("Σύνδεση", k);
+				}
+				i = end;
+			}
+		}
+		return login;
+	}
+
+	// Elements whose content jsoup reads as text, so links inside them are not links;
+	// plaintext runs to the end of the page.
+	private static final List<String> RAW_TEXT = List.of("script", "style", "textarea", "title", "xmp", "iframe", "noembed", "noframes", "plaintext");
+	private static final List<String> RCDATA = List.of("textarea", "title");
+
+	private static boolean closed(String html, int from, String tag) {
+		for (int i = html.indexOf("</", from); i >= 0; i = html.indexOf("</", i + 2)) {
+			if (isTag(html, i + 2, tag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isLetter(char c) {
+		return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z';
+	}
+
+	private static boolean isTag(String html, int start, String name) {
+		int end = start + name.length();
+		if (!html.regionMatches(true, start, name, 0, name.length())) {
+			return false;
+		}
+		return end == html.length() || Character.isWhitespace(html.charAt(end)) || html.charAt(end) == '>' || html.charAt(end) == '/';
+	}
+
+	// Reads the attributes of a tag starting at i, adding its first href (entity-
+	// decoded, like Element.attr) when given a list, and returning the index of the
+	// closing '>'.
+	private static int attributes(String html, int i, List<String> hrefs) {
+		int n = html.length();
+		boolean found = false;
+		while (i < n) {
+			char c = html.charAt(i);
+			if (c == '>') {
+				return i;
+			}
+			if (Character.isWhitespace(c) || c == '/') {
+				i++;
+				continue;
+			}
+			int nameStart = i;
+			while (i < n && !Character.isWhitespace(html.charAt(i)) && "=>/".indexOf(html.charAt(i)) < 0) {
+				i++;
+			}
+			String name = hrefs == null ? null : html.substring(nameStart, i);
+			while (i < n && Character.isWhitespace(html.charAt(i))) {
+				i++;
+			}
+			if (i >= n || html.charAt(i) != '=') {
+				// a valueless href is still an href, with an empty value
+				if (hrefs != null && !found && name.equalsIgnoreCase("href")) {
+					hrefs.add("");
+					found = true;
+				}
+				continue;
+			}
+			i++;
+			while (i < n && Character.isWhitespace(html.charAt(i))) {
+				i++;
+			}
+			int valueStart, valueEnd;
+			if (i < n && (html.charAt(i) == '"' || html.charAt(i) == '\'')) {
+				valueStart = i + 1;
+				valueEnd = html.indexOf(html.charAt(i), valueStart);
+				if (valueEnd < 0) {
+					valueEnd = n;
+				}
+				i = valueEnd + 1;
+			} else {
+				valueStart = i;
+				while (i < n && !Character.isWhitespace(html.charAt(i)) && html.charAt(i) != '>') {
+					i++;
+				}
+				valueEnd = i;
+			}
+			if (hrefs != null && !found && name.equalsIgnoreCase("href")) {
+				hrefs.add(Parser.unescapeEntities(html.substring(valueStart, valueEnd), true));
+				found = true;
+			}
+		}
+		return n;
+	}
+
+	private static Http.Response request(String url, String cookie, Validator validator) throws IOException {
+		Map<String, String> headers = new HashMap<>();
+		if (validator != null && validator.etag != null) {
+			headers.put("If-None-Match", validator.etag);
+		}
+		if (validator != null && validator.lastModified != null) {
+			headers.put("If-Modified-Since", validator.lastModified);
+		}
+		return Http.get(url, cookie, headers);
+	}
+
+	public static String hash(byte[] bytes) {
+		try {
+			return Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(bytes));
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public static Map<String, Validator> loadValidators() {
+		Map<String, Validator> validators = new ConcurrentHashMap<>();
+		try {
+			FileInputStream fileInputStream = new FileInputStream("validators.ser");
+			ObjectInputStream objectInputStream = new ObjectInputStream(fileInputStream);
+			validators.putAll((Map<String, Validator>) objectInputStream.readObject());
+			objectInputStream.close();
+			fileInputStream.close();
+		} catch (ClassNotFoundException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			// first run: nothing cached yet
+		}
+		return validators;
+	}
+
+	// Only saved once every course snapshot is written, so a validator never
+	// outlives the snapshot holding the listing it vouches for.
+	public static void saveValidators() {
+		try {
+			FileOutputStream fileOut = new FileOutputStream("validators.ser");
+			ObjectOutputStream out = new ObjectOutputStream(fileOut);
+			out.writeObject(new HashMap<>(validators));
+			out.close();
+			fileOut.close();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	// Read-only view of a directory, implemented by Node and by the lazily decoded
+	// nodes of a memory-mapped snapshot.
+	public interface TreeNode {
+		String url();
+		String fingerprint();
+		String merkle();
+		List<? extends TreeNode> directories();
+		List<String> files();
+	}
+
+	public static class Node implements TreeNode, Serializable {
+		private static final long serialVersionUID = -6728140338178670149L;
+
+		public String parent;
+		public String fingerprint;
+		public String merkle;
+		public transient List<Node> directoryChildren = new ArrayList<>();
+		public transient List<String> fileChildren = new UrlList();
+
+		public String url() {
+			return parent;
+		}
+
+		public String fingerprint() {
+			return fingerprint;
+		}
+
+		public String merkle() {
+			return merkle;
+		}
+
+		public List<Node> directories() {
+			return directoryChildren;
+		}
+
+		public List<String> files() {
+			return fileChildren;
+		}
+
+		public static Node of(TreeNode view) {
+			if (view instanceof Node) {
+				return (Node) view;
+			}
+			Node node = new Node();
+			node.parent = view.url();
+			node.fingerprint = view.fingerprint();
+			node.merkle = view.merkle();
+			node.fileChildren.addAll(view.files());
+			for (TreeNode child : view.directories()) {
+				node.directoryChildren.add(of(child));
+			}
+			return node;
+		}
+
+		private void writeObject(ObjectOutputStream out) throws IOException {
+			out.defaultWriteObject();
+
+			out.writeInt(directoryChildren.size());
+			for (Node child : directoryChildren) {
+				out.writeObject(child);
+			}
+
+			out.writeInt(fileChildren.size());
+			for (String file : fileChildren) {
+				out.writeUTF(file);
+			}
+		}
+
+		private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+			in.defaultReadObject();
+			directoryChildren = new ArrayList<>();
+			fileChildren = new UrlList();
+
+			int numDirectoryChildren = in.readInt();
+			for (int i = 0; i < numDirectoryChildren; i++) {
+				Node child = (Node) in.readObject();
+				directoryChildren.add(child);
+			}
+
+			int numFileChildren = in.readInt();
+			for (int i = 0; i < numFileChildren; i++) {
+				String file = in.readUTF();
+				fileChildren.add(file);
+			}
+		}
+	}
+
+	// File URLs repeat their directory's link over and over, so a node keeps each
+	// one split at its last '/': the prefix is shared through a pool of prefixes
+	// and the rest is packed into one UTF-8 buffer per list, the way snapshots store
+	// them on disk. Full URLs are put back together on access. Only appending is
+	// supported, which is all a node's file list ever needs.
+	public static class UrlList extends AbstractList<String> implements RandomAccess {
+		private static final ConcurrentHashMap<String, String> PREFIXES = new ConcurrentHashMap<>();
+
+		private String[] prefixes = new String[0];
+		private int[] ends = new int[0];
+		private byte[] suffixes = new byte[0];
+		private int size;
+
+		public static String prefix(String prefix) {
+			String pooled = PREFIXES.putIfAbsent(prefix, prefix);
+			return pooled != null ? pooled : prefix;
+		}
+
+		public String get(int index) {
+			Objects.checkIndex(index, size);
+			int start = index == 0 ? 0 : ends[index - 1];
+			return prefixes[index].concat(new String(suffixes, start, ends[index] - start, StandardCharsets.UTF_8));
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public void add(int index, String url) {
+			Objects.checkIndex(index, size + 1);
+			int split = url.lastIndexOf('/') + 1;
+			byte[] suffix = url.substring(split).getBytes(StandardCharsets.UTF_8);
+			int start = index == 0 ? 0 : ends[index - 1];
+			int end = size == 0 ? 0 : ends[size - 1];
+			if (size == prefixes.length) {
+				int capacity = Math.max(4, size * 2);
+				prefixes = Arrays.copyOf(prefixes, capacity);
+				ends = Arrays.copyOf(ends, capacity);
+			}
+			if (end + suffix.length > suffixes.length) {
+				suffixes = Arrays.copyOf(suffixes, Math.max(end + suffix.length, suffixes.length * 2));
+			}
+			System.arraycopy(suffixes, start, suffixes, start + suffix.length, end - start);
+			System.arraycopy(suffix, 0, suffixes, start, suffix.length);
+			System.arraycopy(prefixes, index, prefixes, index + 1, size - index);
+			System.arraycopy(ends, index, ends, index + 1, size - index);
+			for (int i = index + 1; i <= size; i++) {
+				ends[i] += suffix.length;
+			}
+			prefixes[index] = prefix(url.substring(0, split));
+			ends[index] = start + suffix.length;
+			size++;
+			modCount++;
+		}
+
+		public String remove(int index) {
+			String removed = get(index);
+			int start = index == 0 ? 0 : ends[index - 1];
+			int length = ends[index] - start;
+			System.arraycopy(suffixes, ends[index], suffixes, start, ends[size - 1] - ends[index]);
+			System.arraycopy(prefixes, index + 1, prefixes, index, size - index - 1);
+			System.arraycopy(ends, index + 1, ends, index, size - index - 1);
+			size--;
+			for (int i = index; i < size; i++) {
+				ends[i] -= length;
+			}
+			prefixes[size] = null;
+			modCount++;
+			return removed;
+		}
+
+		public String set(int index, String url) {
+			String replaced = remove(index);
+			add(index, url);
+			return replaced;
+		}
+	}
+
+	public static Node gen(String url) {
+		return gen(url, null, null, null);
+	}
+
+	public static Node gen(String url, ExecutorService executor) {
+		return gen(url, null, executor, null);
+	}
+
+	public static Node gen(String url, TreeNode previous, ExecutorService executor) {
+		return gen(url, previous, executor, null);
+	}
+
+	public static Node gen(String url, TreeNode previous, ExecutorService executor, Journal journal) {
+		return new Crawler(executor, journal, ORDER).crawl(url, previous);
+	}
+
+	// Frontier-based crawl of one course. Directories wait in a work queue, taken in
+	// BFS, DFS or priority order, and are fetched on the given executor (or inline
+	// without one), at most CONCURRENCY at a time. A finished directory attaches its
+	// node to its parent, and a parent whose children are all in is finished next,
+	// so children keep their link order. A visited set makes sure no directory is
+	// fetched twice.
+	// Pages unchanged since the previous snapshot reuse its listing; with -Dtree.prune
+	// an unchanged listing also reuses the whole stored subtree without descending.
+	// With a journal, every finished directory is checkpointed and directories
+	// finished by an interrupted run are taken from it instead of being fetched.
+	public static class Crawler {
+		public enum Order { BFS, DFS, PRIORITY }
+
+		private static class Task {
+			final String url;
+			final TreeNode previous;
+			final Task parent;
+			final int index;
+			final int depth;
+			final long sequence;
+			Node node;
+			Node[] children;
+			final AtomicInteger pending = new AtomicInteger();
+
+			Task(String url, TreeNode previous, Task parent, int index, long sequence) {
+				this.url = url;
+				this.previous = previous;
+				this.parent = parent;
+				this.index = index;
+				this.depth = parent == null ? 0 : parent.depth + 1;
+				this.sequence = sequence;
+			}
+		}
+
+		// Directories missing from the previous snapshot first (that is where changes
+		// are), then shallower ones, then link order.
+		private static final Comparator<Task> PRIORITY = Comparator.<Task, Boolean>comparing(task -> task.previous != null)
+				.thenComparingInt(task -> task.depth)
+				.thenComparingLong(task -> task.sequence);
+
+		private final Executor executor;
+		private final Journal journal;
+		private final Order order;
+		private final int parallelism;
+		private final Queue<Task> frontier;
+		private final Set<String> visited = ConcurrentHashMap.newKeySet();
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition changed = lock.newCondition();
+		private int inFlight;
+		private long sequence;
+		private Throwable failure;
+		private Node result;
+
+		public Crawler(Executor executor, Journal journal, Order order) {
+			this.executor = executor != null ? executor : Runnable::run;
+			this.journal = journal;
+			this.order = order;
+			this.parallelism = executor != null ? Math.max(1, CONCURRENCY) : 1;
+			this.frontier = order == Order.PRIORITY ? new PriorityQueue<>(PRIORITY) : new ArrayDeque<>();
+		}
+
+		public Node crawl(String url, TreeNode previous) {
+			url = canonical(url);
+			visited.add(url);
+			lock.lock();
+			try {
+				frontier.add(new Task(url, previous, null, 0, sequence++));
+				while (true) {
+					// after a failure nothing new is started, the running fetches are let finish
+					while (inFlight > 0 && (failure != null || frontier.isEmpty() || inFlight >= parallelism)) {
+						changed.awaitUninterruptibly();
+					}
+					if (failure != null || frontier.isEmpty()) {
+						break;
+					}
+					Task task = frontier.poll();
+					inFlight++;
+					lock.unlock();
+					try {
+						executor.execute(() -> run(task));
+					} finally {
+						lock.lock();
+					}
+				}
+			} finally {
+				lock.unlock();
+			}
+			if (failure instanceof RuntimeException) {
+				throw (RuntimeException) failure;
+			}
+			if (failure != null) {
+				throw new RuntimeException(failure);
+			}
+			return result;
+		}
+
+		private void run(Task task) {
+			Throwable thrown = null;
+			try {
+				process(task);
+			} catch (Throwable e) {
+				thrown = e;
+			}
+			lock.lock();
+			try {
+				inFlight--;
+				if (thrown != null && failure == null) {
+					failure = thrown;
+				}
+				changed.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private void process(Task task) {
+			Node resumed = journal == null ? null : journal.resume(task.url);
+			if (resumed != null) {
+				visit(resumed);
+				attach(task, resumed);
+				return;
+			}
+			List<String>[] array = links(task.url, task.previous != null);
+			if (array == null) {
+				array = listing(task.previous);
+			}
+			List<String> files = array[0];
+			List<String> directories = array[1];
+			String fingerprint = fingerprint(array);
+			if (PRUNE && task.previous != null && fingerprint.equals(task.previous.fingerprint())) {
+				Node reused = Node.of(task.previous);
+				if (reused.merkle == null) {
+					reused.merkle = merkle(reused);
+				}
+				if (journal != null) {
+					journal.recordAll(reused);
+				}
+				visit(reused);
+				attach(task, reused);
+				return;
+			}
+
+			Map<String, TreeNode> previousChildren = new HashMap<>();
+			if (task.previous != null) {
+				for (TreeNode child : task.previous.directories()) {
+					previousChildren.put(child.url(), child);
+				}
+			}
+
+			Node node = new Node();
+			node.parent = task.url;
+			node.fingerprint = fingerprint;
+			node.fileChildren.addAll(files);
+			task.node = node;
+
+			List<String> unvisited = new ArrayList<>();
+			for (String directory : directories) {
+				if (visited.add(directory)) {
+					unvisited.add(directory);
+				}
+			}
+			if (unvisited.isEmpty()) {
+				finish(task);
+				return;
+			}
+			task.children = new Node[unvisited.size()];
+			task.pending.set(unvisited.size());
+			lock.lock();
+			try {
+				List<Task> children = new ArrayList<>();
+				for (int i = 0; i < unvisited.size(); i++) {
+					children.add(new Task(unvisited.get(i), previousChildren.get(unvisited.get(i)), task, i, sequence++));
+				}
+				if (order == Order.DFS) {
+					// pushed in reverse so the first link is taken first
+					for (int i = children.size() - 1; i >= 0; i--) {
+						((ArrayDeque<Task>) frontier).addFirst(children.get(i));
+					}
+				} else {
+					frontier.addAll(children);
+				}
+				changed.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		// Directories taken whole from the journal or the previous snapshot are not
+		// fetched again when linked from elsewhere.
+		private void visit(Node node) {
+			for (Node child : node.directoryChildren) {
+				visited.add(child.parent);
+				visit(child);
+			}
+		}
+
+		private void finish(Task task) {
+			task.node.merkle = merkle(task.node);
+			if (journal != null) {
+				journal.record(task.node);
+			}
+			attach(task, task.node);
+		}
+
+		// Hands a finished subtree to its parent; the last child to arrive finishes the parent.
+		private void attach(Task task, Node node) {
+			Task parent = task.parent;
+			if (parent == null) {
+				result = node;
+				return;
+			}
+			parent.children[task.index] = node;
+			if (parent.pending.decrementAndGet() == 0) {
+				parent.node.directoryChildren.addAll(Arrays.asList(parent.children));
+				parent.children = null;
+				finish(parent);
+			}
+		}
+	}
+
+	// Append-only checkpoint of a course crawl in <course>.journal: one record per
+	// finished directory (url, fingerprint, Merkle hash, files, child urls), written
+	// only after all of its children. A torn last record from a crash is cut off on
+	// open. The header holds the time the journal was started; once that is more than
+	// a day ago the whole journal is dropped, however recently it was appended to, so
+	// a stale crawl is never resumed.
+	public static class Journal implements Closeable {
+		public static final long MAX_AGE = TimeUnit.DAYS.toMillis(1);
+		private static final int MAGIC = 0x4a524e4c;
+		private static final int HEADER = 12;
+
+		private final Path path;
+		private final Map<String, Node> records = new ConcurrentHashMap<>();
+		private final Map<String, List<String>> children = new ConcurrentHashMap<>();
+		private final DataOutputStream out;
+
+		public Journal(Path path) throws IOException {
+			this.path = path;
+			long valid = 0;
+			if (Files.exists(path)) {
+				byte[] bytes = Files.readAllBytes(path);
+				DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+				try {
+					if (in.readInt() == MAGIC && System.currentTimeMillis() - in.readLong() < MAX_AGE) {
+						valid = HEADER;
+						while (in.available() > 0) {
+							read(in);
+							valid = bytes.length - in.available();
+						}
+					}
+				} catch (IOException e) {
+					// torn record at the end: everything before it is still good
+				}
+				if (valid == 0) {
+					records.clear();
+					children.clear();
+				}
+			}
+			FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			channel.truncate(valid);
+			channel.close();
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path.toFile(), true)));
+			if (valid == 0) {
+				out.writeInt(MAGIC);
+				out.writeLong(System.currentTimeMillis());
+				out.flush();
+			}
+		}
+
+		public static Journal open(int CourseNum) {
+			try {
+				return new Journal(Path.of(CourseNum+".journal"));
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		private void read(DataInputStream in) throws IOException {
+			Node node = new Node();
+			node.parent = in.readUTF();
+			node.fingerprint = optional(in.readUTF());
+			node.merkle = optional(in.readUTF());
+			int files = in.readInt();
+			for (int i = 0; i < files; i++) {
+				node.fileChildren.add(in.readUTF());
+			}
+			int count = in.readInt();
+			List<String> urls = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				urls.add(in.readUTF());
+			}
+			records.put(node.parent, node);
+			children.put(node.parent, urls);
+		}
+
+		private static String optional(String value) {
+			return value.isEmpty() ? null : value;
+		}
+
+		// The finished subtree at url, or null if any part of it is missing.
+		public Node resume(String url) {
+			Node record = records.get(url);
+			if (record == null) {
+				return null;
+			}
+			Node node = new Node();
+			node.parent = record.parent;
+			node.fingerprint = record.fingerprint;
+			node.merkle = record.merkle;
+			node.fileChildren.addAll(record.fileChildren);
+			for (String child : children.get(url)) {
+				Node resumed = resume(child);
+				if (resumed == null) {
+					return null;
+				}
+				node.directoryChildren.add(resumed);
+			}
+			return node;
+		}
+
+		public synchronized void record(Node node) {
+			try {
+				out.writeUTF(node.parent);
+				out.writeUTF(node.fingerprint == null ? "" : node.fingerprint);
+				out.writeUTF(node.merkle == null ? "" : node.merkle);
+				out.writeInt(node.fileChildren.size());
+				for (String file : node.fileChildren) {
+					out.writeUTF(file);
+				}
+				out.writeInt(node.directoryChildren.size());
+				for (Node child : node.directoryChildren) {
+					out.writeUTF(child.parent);
+				}
+				out.flush();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		public void recordAll(Node node) {
+			for (Node child : node.directoryChildren) {
+				recordAll(child);
+			}
+			record(node);
+		}
+
+		public synchronized void close() {
+			try {
+				out.close();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		// Once the course snapshot is saved the checkpoint has served its purpose.
+		public void finish() {
+			close();
+			try {
+				Files.deleteIfExists(path);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	// Structural hash of a directory: its url, its files and its children's hashes,
+	// so two subtrees with the same hash are identical all the way down.
+	public static String merkle(TreeNode node) {
+		StringBuilder contents = new StringBuilder();
+		contents.append(node.url()).append('\n');
+		for (String file : node.files()) {
+			contents.append(file).append('\n');
+		}
+		contents.append('\n');
+		for (TreeNode child : node.directories()) {
+			String merkle = child.merkle();
+			contents.append(merkle != null ? merkle : merkle(child)).append('\n');
+		}
+		return hash(contents.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	public static String fingerprint(List<String>[] array) {
+		StringBuilder listing = new StringBuilder();
+		for (String file : array[0]) {
+			listing.append(file).append('\n');
+		}
+		listing.append('\n');
+		for (String directory : array[1]) {
+			listing.append(directory).append('\n');
+		}
+		return hash(listing.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static List<String>[] listing(TreeNode node) {
+		List<String> directories = new ArrayList<>();
+		for (TreeNode child : node.directories()) {
+			directories.add(child.url());
+		}
+		@SuppressWarnings("unchecked")
+		List<String>[] array = new ArrayList[2];
+		array[0] = new ArrayList<>(node.files());
+		array[1] = directories;
+		return array;
+	}
+
+	private static <T> T join(Future<T> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	// Virtual threads when the runtime has them (JDK 21+), otherwise a cached pool.
+	// Tasks never wait on each other; each Crawler keeps at most CONCURRENCY fetches
+	// in flight, so the pool only grows to that many threads per course running at
+	// once (plus name lookups), and Http's limiter still paces the actual requests.
+	public static ExecutorService crawlExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool(runnable -> {
+				Thread thread = new Thread(runnable);
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	public static void print(TreeNode root, String prefix) {
+		PrintStream out = System.out;
+		Printer printer = new Printer(new OutputStreamWriter(out, Charset.defaultCharset()), Printer.Format.PLAIN);
+		printer.print(root, prefix);
+		printer.flush();
+	}
+
+	public static void print(TreeNode root, Printer.Format format, Writer out) {
+		Printer printer = new Printer(out, format);
+		printer.print(root, "");
+		printer.flush();
+	}
+
+	// Streams a tree through one buffered writer, without building a string per
+	// line: indentation comes out of a reusable buffer of tabs and JSON strings are
+	// escaped as they are written.
+	//   PLAIN   one line per directory and file, indented by depth with tabs
+	//   JSON    the tree as one nested object of url, fingerprint, merkle,
+	//           directories and files
+	//   NDJSON  one object per line: type (directory or file), url, parent, depth
+	public static class Printer {
+		public enum Format { PLAIN, JSON, NDJSON }
+
+		private final Writer out;
+		private final Format format;
+		private char[] indent = new char[0];
+
+		public Printer(Writer out, Format format) {
+			this.out = out instanceof BufferedWriter ? out : new BufferedWriter(out, 1 << 16);
+			this.format = format;
+		}
+
+		public void print(TreeNode root, String prefix) {
+			try {
+				switch (format) {
+					case PLAIN:
+						plain(root, prefix, 1);
+						break;
+					case JSON:
+						json(root);
+						out.write('\n');
+						break;
+					default:
+						ndjson(root, null, 0);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		public void flush() {
+			try {
+				out.flush();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		private void plain(TreeNode node, String prefix, int depth) throws IOException {
+			line(prefix, depth, node.url());
+			for (TreeNode child : node.directories()) {
+				plain(child, prefix, depth + 1);
+			}
+			for (String file : node.files()) {
+				line(prefix, depth + 1, file);
+			}
+		}
+
+		private void line(String prefix, int depth, String text) throws IOException {
+			if (indent.length < depth) {
+				indent = new char[Math.max(depth, indent.length * 2)];
+				Arrays.fill(indent, '\t');
+			}
+			out.write(prefix);
+			out.write(indent, 0, depth);
+			out.write(text);
+			out.write('\n');
+		}
+
+		private void json(TreeNode node) throws IOException {
+			out.write("{\"url\":");
+			string(node.url());
+			out.write(",\"fingerprint\":");
+			string(node.fingerprint());
+			out.write(",\"merkle\":");
+			string(node.merkle());
+			out.write(",\"directories\":[");
+			boolean first = true;
+			for (TreeNode child : node.directories()) {
+				if (!first) {
+					out.write(',');
+				}
+				json(child);
+				first = false;
+			}
+			out.write("],\"files\":[");
+			first = true;
+			for (String file : node.files()) {
+				if (!first) {
+					out.write(',');
+				}
+				string(file);
+				first = false;
+			}
+			out.write("]}");
+		}
+
+		private void ndjson(TreeNode node, String parent, int depth) throws IOException {
+			record("directory", node.url(), parent, depth);
+			for (TreeNode child : node.directories()) {
+				ndjson(child, node.url(), depth + 1);
+			}
+			for (String file : node.files()) {
+				record("file", file, node.url(), depth + 1);
+			}
+		}
+
+		private void record(String type, String url, String parent, int depth) throws IOException {
+			out.write("{\"type\":\"");
+			out.write(type);
+			out.write("\",\"url\":");
+			string(url);
+			out.write(",\"parent\":");
+			string(parent);
+			out.write(",\"depth\":");
+			out.write(Integer.toString(depth));
+			out.write("}\n");
+		}
+
+		private void string(String value) throws IOException {
+			if (value == null) {
+				out.write("null");
+				return;
+			}
+			out.write('"');
+			int start = 0;
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				if (c >= ' ' && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029') {
+					continue;
+				}
+				out.write(value, start, i - start);
+				switch (c) {
+					case '"':
+						out.write("\\\"");
+						break;
+					case '\\':
+						out.write("\\\\");
+						break;
+					case '\n':
+						out.write("\\n");
+						break;
+					case '\t':
+						out.write("\\t");
+						break;
+					default:
+						out.write(String.format("\\u%04x", (int) c));
+				}
+				start = i + 1;
+			}
+			out.write(value, start, value.length() - start);
+			out.write('"');
+		}
+	}
+
+	// Compact snapshot format, replacing Java serialization of Node:
+	//   "TREE" magic, varint version, the prefix table, varint node count,
+	//   the node records in postorder, and the offset of the root record as the
+	//   last four bytes.
+	// A record is url, fingerprint, Merkle hash, directory count, the offsets of the
+	// children's records, file count and file urls, so any directory can be decoded
+	// in place (see map). A url is a reference into the prefix table (everything up
+	// to its last '/') followed by the remaining suffix. Lengths and counts are varints.
+	// Version 2 files (no Merkle hash) and version 1 files (preorder, prefixes
+	// defined inline) can still be read.
+	public static class Snapshot {
+		public static final int MAGIC = 0x54524545;
+		public static final int VERSION = 3;
 
-		Elements links;
-		try {
-			Document doc = Jsoup.connect(url).get();
+		public static void write(Node root, OutputStream stream) throws IOException {
+			Map<String, Integer> prefixes = new LinkedHashMap<>();
+			int nodes = collect(root, prefixes);
 
-			if (doc.html().contains("Σύνδεση")) {
-				doc = Jsoup.connect(url).cookies(Collections.singletonMap("PHPSESSID", getCookie())).get();
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+			out.writeInt(MAGIC);
+			writeVarint(out, VERSION);
+			writeVarint(out, prefixes.size());
+			for (String prefix : prefixes.keySet()) {
+				writeBytes(out, prefix.getBytes(StandardCharsets.UTF_8));
 			}
-			if (doc.html().contains("Σύνδεση")) {
-				updateCookie();
-				doc = Jsoup.connect(url).cookies(Collections.singletonMap("PHPSESSID", getCookie())).get();
-			}
-			links = doc.select("a[href]");
-		} catch (IOException e) {
-			throw new RuntimeException(e);
+			writeVarint(out, nodes);
+			int rootOffset = writeNode(out, root, prefixes);
+			out.writeInt(rootOffset);
+			out.flush();
 		}
 
-		linktest: for (int i = 0; i < links.size(); i++) {
-			Element link = links.get(i);
-			String href = link.attr("href");
-			for (int j = 0; j < filter_words.size(); j++) {
-				String filter_word = filter_words.get(j);
-				if (href.contains(filter_word)) {
-					continue linktest;
+		public static Node read(InputStream stream) throws IOException {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+			if (in.readInt() != MAGIC) {
+				throw new IOException("not a tree snapshot");
+			}
+			int version = readVarint(in);
+			if (version == 1) {
+				return readNodeV1(in, new ArrayList<>());
+			}
+			if (version != 2 && version != VERSION) {
+				throw new IOException("unsupported snapshot version " + version);
+			}
+			List<String> prefixes = new ArrayList<>();
+			int count = readVarint(in);
+			for (int i = 0; i < count; i++) {
+				prefixes.add(new String(readBytes(in), StandardCharsets.UTF_8));
+			}
+
+			// postorder: a record's children are the last ones completed before it
+			ArrayDeque<Node> completed = new ArrayDeque<>();
+			int nodes = readVarint(in);
+			for (int i = 0; i < nodes; i++) {
+				Node node = new Node();
+				node.parent = readUrl(in, prefixes);
+				node.fingerprint = encode(readBytes(in));
+				if (version >= 3) {
+					node.merkle = encode(readBytes(in));
 				}
+				int directories = readVarint(in);
+				for (int j = 0; j < directories; j++) {
+					readVarint(in);
+				}
+				Node[] children = new Node[directories];
+				for (int j = directories - 1; j >= 0; j--) {
+					children[j] = completed.pop();
+				}
+				node.directoryChildren.addAll(Arrays.asList(children));
+				int files = readVarint(in);
+				for (int j = 0; j < files; j++) {
+					node.fileChildren.add(readUrl(in, prefixes));
+				}
+				completed.push(node);
+			}
+			if (completed.size() != 1) {
+				throw new IOException("corrupt snapshot: " + completed.size() + " roots");
 			}
-			if (!href.contains("http") & !href.equals("/")) {
-				if (!(href + " ").contains("&openDir=/ ") & !(href + " ").contains("&openDir= ") & !href.equals(url)) {
-					if (href.substring(href.length() - 6).contains(".")) {
-						files.add("https://eclass.aueb.gr"+href);
-					} else if (!href.contains("&download=/")) {
-						directories.add("https://eclass.aueb.gr"+href);
+			return completed.pop();
+		}
+
+		// Maps a version 2 or 3 snapshot and returns a view of its root; directories
+		// are decoded only when visited. Other files are read into memory with load.
+		public static TreeNode map(String filename) {
+			try (FileChannel channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ)) {
+				ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				if (buffer.remaining() >= 8 && buffer.getInt(0) == MAGIC) {
+					buffer.position(4);
+					int version = readVarint(buffer);
+					if (version == 2 || version == VERSION) {
+						return new Mapped(buffer, version).root();
 					}
 				}
+			} catch (IOException e) {
+				// missing or unreadable: load decides what an empty snapshot looks like
 			}
+			return load(filename);
 		}
 
-		array[0] = files;
-		array[1] = directories;
+		private static class Mapped {
+			private final ByteBuffer buffer;
+			private final int version;
+			private final String[] prefixes;
 
-		return array;
-	}
+			Mapped(ByteBuffer buffer, int version) {
+				this.buffer = buffer;
+				this.version = version;
+				prefixes = new String[readVarint(buffer)];
+				for (int i = 0; i < prefixes.length; i++) {
+					prefixes[i] = new String(readBytes(buffer), StandardCharsets.UTF_8);
+				}
+			}
 
-	public static class Node implements Serializable {
-		public String parent;
-		public List<Node> directoryChildren = new ArrayList<>();
-		public List<String> fileChildren = new ArrayList<>();
+			TreeNode root() {
+				return new MappedNode(this, buffer.getInt(buffer.limit() - 4));
+			}
 
-		private void writeObject(ObjectOutputStream out) throws IOException {
-			out.defaultWriteObject();
+			String readUrl(ByteBuffer cursor) {
+				int index = readVarint(cursor);
+				if (index == 0) {
+					return null;
+				}
+				return prefixes[index - 1] + new String(readBytes(cursor), StandardCharsets.UTF_8);
+			}
+		}
 
-			out.writeInt(directoryChildren.size());
-			for (Node child : directoryChildren) {
-				out.writeObject(child);
+		private static class MappedNode implements TreeNode {
+			private final Mapped snapshot;
+			private final int offset;
+			private String url;
+			private String fingerprint;
+			private String merkle;
+			private List<MappedNode> directories;
+			private int filesOffset;
+			private List<String> files;
+
+			MappedNode(Mapped snapshot, int offset) {
+				this.snapshot = snapshot;
+				this.offset = offset;
 			}
 
-			out.writeInt(fileChildren.size());
-			for (String file : fileChildren) {
-				out.writeUTF(file);
+			private synchronized void header() {
+				if (directories != null) {
+					return;
+				}
+				ByteBuffer cursor = snapshot.buffer.duplicate();
+				cursor.position(offset);
+				url = snapshot.readUrl(cursor);
+				fingerprint = encode(readBytes(cursor));
+				if (snapshot.version >= 3) {
+					merkle = encode(readBytes(cursor));
+				}
+				int count = readVarint(cursor);
+				List<MappedNode> children = new ArrayList<>(count);
+				for (int i = 0; i < count; i++) {
+					children.add(new MappedNode(snapshot, readVarint(cursor)));
+				}
+				filesOffset = cursor.position();
+				directories = Collections.unmodifiableList(children);
+			}
+
+			public String url() {
+				header();
+				return url;
+			}
+
+			public String fingerprint() {
+				header();
+				return fingerprint;
+			}
+
+			public String merkle() {
+				header();
+				return merkle;
+			}
+
+			public List<MappedNode> directories() {
+				header();
+				return directories;
+			}
+
+			public synchronized List<String> files() {
+				header();
+				if (files == null) {
+					ByteBuffer cursor = snapshot.buffer.duplicate();
+					cursor.position(filesOffset);
+					int count = readVarint(cursor);
+					List<String> decoded = new ArrayList<>(count);
+					for (int i = 0; i < count; i++) {
+						decoded.add(snapshot.readUrl(cursor));
+					}
+					files = Collections.unmodifiableList(decoded);
+				}
+				return files;
 			}
 		}
 
-		private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
-			in.defaultReadObject();
+		private static int collect(Node node, Map<String, Integer> prefixes) {
+			int nodes = 1;
+			prefix(node.parent, prefixes);
+			for (String file : node.fileChildren) {
+				prefix(file, prefixes);
+			}
+			for (Node child : node.directoryChildren) {
+				nodes += collect(child, prefixes);
+			}
+			return nodes;
+		}
 
-			int numDirectoryChildren = in.readInt();
-			for (int i = 0; i < numDirectoryChildren; i++) {
-				Node child = (Node) in.readObject();
-				directoryChildren.add(child);
+		private static void prefix(String url, Map<String, Integer> prefixes) {
+			if (url != null) {
+				prefixes.putIfAbsent(url.substring(0, url.lastIndexOf('/') + 1), prefixes.size());
 			}
+		}
 
-			int numFileChildren = in.readInt();
-			for (int i = 0; i < numFileChildren; i++) {
-				String file = in.readUTF();
-				fileChildren.add(file);
+		// Returns the offset the node's record was written at.
+		private static int writeNode(DataOutputStream out, Node node, Map<String, Integer> prefixes) throws IOException {
+			int[] children = new int[node.directoryChildren.size()];
+			for (int i = 0; i < children.length; i++) {
+				children[i] = writeNode(out, node.directoryChildren.get(i), prefixes);
+			}
+			int offset = out.size();
+			writeUrl(out, node.parent, prefixes);
+			writeBytes(out, node.fingerprint == null ? null : Base64.getDecoder().decode(node.fingerprint));
+			writeBytes(out, node.merkle == null ? null : Base64.getDecoder().decode(node.merkle));
+			writeVarint(out, children.length);
+			for (int child : children) {
+				writeVarint(out, child);
 			}
+			writeVarint(out, node.fileChildren.size());
+			for (String file : node.fileChildren) {
+				writeUrl(out, file, prefixes);
+			}
+			return offset;
 		}
-	}
 
-	public static Node gen(String url) {
-		List<String>[] array = links(url);
-		List<String> files = array[0];
-		List<String> directories = array[1];
+		private static Node readNodeV1(DataInputStream in, List<String> prefixes) throws IOException {
+			Node node = new Node();
+			node.parent = readUrlV1(in, prefixes);
+			node.fingerprint = encode(readBytes(in));
+			int directories = readVarint(in);
+			int files = readVarint(in);
+			for (int i = 0; i < files; i++) {
+				node.fileChildren.add(readUrlV1(in, prefixes));
+			}
+			for (int i = 0; i < directories; i++) {
+				node.directoryChildren.add(readNodeV1(in, prefixes));
+			}
+			return node;
+		}
 
-		Node root = new Node();
-		root.parent = url;
-		root.fileChildren = files;
+		private static String readUrlV1(DataInputStream in, List<String> prefixes) throws IOException {
+			int index = readVarint(in);
+			if (index == 0) {
+				return null;
+			}
+			if (index - 1 == prefixes.size()) {
+				prefixes.add(new String(readBytes(in), StandardCharsets.UTF_8));
+			} else if (index - 1 > prefixes.size()) {
+				throw new IOException("corrupt snapshot: prefix " + (index - 1) + " not yet defined");
+			}
+			return prefixes.get(index - 1) + new String(readBytes(in), StandardCharsets.UTF_8);
+		}
 
-		for (int i = 0; i < directories.size(); i++) {
-			String directory = directories.get(i);
-			root.directoryChildren.add(gen(directory));
+		// Prefix references are index + 1, so that 0 can stand for a null url (an empty root).
+		private static void writeUrl(DataOutputStream out, String url, Map<String, Integer> prefixes) throws IOException {
+			if (url == null) {
+				writeVarint(out, 0);
+				return;
+			}
+			String prefix = url.substring(0, url.lastIndexOf('/') + 1);
+			writeVarint(out, prefixes.get(prefix) + 1);
+			writeBytes(out, url.substring(prefix.length()).getBytes(StandardCharsets.UTF_8));
 		}
 
-		return root;
-	}
+		private static String readUrl(DataInputStream in, List<String> prefixes) throws IOException {
+			int index = readVarint(in);
+			if (index == 0) {
+				return null;
+			}
+			return prefixes.get(index - 1) + new String(readBytes(in), StandardCharsets.UTF_8);
+		}
+
+		private static String encode(byte[] digest) {
+			return digest == null ? null : Base64.getEncoder().encodeToString(digest);
+		}
+
+		// Byte strings are length + 1, so that 0 can stand for null.
+		private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+			if (bytes == null) {
+				writeVarint(out, 0);
+				return;
+			}
+			writeVarint(out, bytes.length + 1);
+			out.write(bytes);
+		}
+
+		private static byte[] readBytes(DataInputStream in) throws IOException {
+			int length = readVarint(in);
+			if (length == 0) {
+				return null;
+			}
+			byte[] bytes = new byte[length - 1];
+			in.readFully(bytes);
+			return bytes;
+		}
 
-	public static void print(Node root, String prefix) {
-		System.out.println(prefix + "\t" + root.parent);
-		String branch_prefix = prefix + "\t";
+		private static byte[] readBytes(ByteBuffer in) {
+			int length = readVarint(in);
+			if (length == 0) {
+				return null;
+			}
+			byte[] bytes = new byte[length - 1];
+			in.get(bytes);
+			return bytes;
+		}
+
+		public static void writeVarint(DataOutput out, int value) throws IOException {
+			while ((value & ~0x7F) != 0) {
+				out.writeByte((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			out.writeByte(value);
+		}
 
-		for (int i = 0; i < root.directoryChildren.size(); i++) {
-			Node child = root.directoryChildren.get(i);
-			print(child, branch_prefix);
+		public static int readVarint(DataInput in) throws IOException {
+			int value = 0;
+			for (int shift = 0; shift < 32; shift += 7) {
+				int b = in.readUnsignedByte();
+				value |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+			throw new IOException("corrupt snapshot: varint too long");
 		}
 
-		for (int i = 0; i < root.fileChildren.size(); i++) {
-			String file = root.fileChildren.get(i);
-			System.out.println(branch_prefix + '\t' + file);
+		public static int readVarint(ByteBuffer in) {
+			int value = 0;
+			for (int shift = 0; shift < 32; shift += 7) {
+				int b = in.get() & 0xFF;
+				value |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+			throw new IllegalStateException("corrupt snapshot: varint too long");
 		}
 	}
 
+	// Written next to the target and moved over it, so a mapped previous snapshot
+	// is never truncated underneath its readers and a failed save leaves it intact.
 	public static void save(Node root, int CourseNum) {
-		FileOutputStream fileOut;
-		try {
-			fileOut = new FileOutputStream(CourseNum+".ser");
-		} catch (FileNotFoundException e) {
-			throw new RuntimeException(e);
-		}
 		try {
-			ObjectOutputStream out = new ObjectOutputStream(fileOut);
-			out.writeObject(root);
-			out.close();
+			Path target = Path.of(CourseNum+".ser");
+			Path temporary = Path.of(CourseNum+".ser.tmp");
+			FileOutputStream fileOut = new FileOutputStream(temporary.toFile());
+			Snapshot.write(root, fileOut);
 			fileOut.close();
+			Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
 	}
 
+	// Reads the compact snapshot format, falling back to Java serialization for
+	// snapshots written before it existed.
 	public static Node load(String filename) {
 		Node root = null;
 		try {
-			FileInputStream fileInputStream = new FileInputStream(filename);
-			ObjectInputStream objectInputStream = new ObjectInputStream(fileInputStream);
-			root = (Node) objectInputStream.readObject();
-			objectInputStream.close();
+			BufferedInputStream fileInputStream = new BufferedInputStream(new FileInputStream(filename));
+			fileInputStream.mark(4);
+			boolean compact = new DataInputStream(fileInputStream).readInt() == Snapshot.MAGIC;
+			fileInputStream.reset();
+			if (compact) {
+				root = Snapshot.read(fileInputStream);
+			} else {
+				ObjectInputStream objectInputStream = new ObjectInputStream(fileInputStream);
+				root = (Node) objectInputStream.readObject();
+				objectInputStream.close();
+			}
 			fileInputStream.close();
 		} catch (ClassNotFoundException e) {
 			e.printStackTrace();
@@ -175,50 +2010,179 @@ public class Tree {
 		return root;
 	}
 
-	public static void diff(Node previous, Node latest) {
-		HashMap<String, Node> oldDirectoryChildren = new HashMap<>();
-		HashMap<String, Node> newDirectoryChildren = new HashMap<>();
+	public static class Change {
+		public enum Type { ADDED, DELETED, MOVED }
+
+		public final Type type;
+		public final boolean directory;
+		public final String url;
+		// the directory the change happened in
+		public final String parent;
+		// for moves, where it used to be
+		public final String from;
+
+		public Change(Type type, boolean directory, String url, String parent) {
+			this(type, directory, url, parent, null);
+		}
+
+		public Change(Type type, boolean directory, String url, String parent, String from) {
+			this.type = type;
+			this.directory = directory;
+			this.url = url;
+			this.parent = parent;
+			this.from = from;
+		}
+
+		public String toString() {
+			return describe(Function.identity());
+		}
+
+		public String describe(Function<String, String> label) {
+			switch (type) {
+				case ADDED:
+					return label.apply(url) + " added!";
+				case DELETED:
+					return label.apply(url) + " deleted!";
+				default:
+					return label.apply(from) + " moved to " + label.apply(url) + "!";
+			}
+		}
+	}
+
+	public static List<Change> diff(TreeNode previous, TreeNode latest) {
+		return diff(previous, latest, Tree::identity);
+	}
+
+	// A deletion and an addition of the same identity, anywhere in the tree, are
+	// reported as one move.
+	public static List<Change> diff(TreeNode previous, TreeNode latest, Function<String, String> identity) {
+		List<Change> changes = new ArrayList<>();
+		diff(previous, latest, changes);
 
-		for (Node directory : previous.directoryChildren) {
-			oldDirectoryChildren.put(directory.parent, directory);
+		Map<String, ArrayDeque<Change>> deleted = new HashMap<>();
+		for (Change change : changes) {
+			if (change.type == Change.Type.DELETED) {
+				deleted.computeIfAbsent(key(change, identity), key -> new ArrayDeque<>()).add(change);
+			}
+		}
+		if (deleted.isEmpty()) {
+			return changes;
 		}
+		Set<Change> moved = Collections.newSetFromMap(new IdentityHashMap<>());
+		List<Change> result = new ArrayList<>(changes.size());
+		for (Change change : changes) {
+			ArrayDeque<Change> candidates = change.type == Change.Type.ADDED ? deleted.get(key(change, identity)) : null;
+			if (candidates != null && !candidates.isEmpty()) {
+				Change origin = candidates.poll();
+				moved.add(origin);
+				result.add(new Change(Change.Type.MOVED, change.directory, change.url, change.parent, origin.url));
+			} else {
+				result.add(change);
+			}
+		}
+		result.removeIf(moved::contains);
+		return result;
+	}
 
-		for (Node directory : latest.directoryChildren) {
-			newDirectoryChildren.put(directory.parent, directory);
+	private static String key(Change change, Function<String, String> identity) {
+		return (change.directory ? "directory:" : "file:") + identity.apply(change.url);
+	}
+
+	// eclass keeps a document's stored name when it is moved to another folder;
+	// only the folder part of its &download= (or &openDir=) path changes.
+	public static String identity(String url) {
+		return url.substring(url.lastIndexOf('/') + 1);
+	}
+
+	public static void report(List<Change> changes, PrintStream out) {
+		report(changes, Map.of(), out);
+	}
+
+	public static void report(List<Change> changes, Map<String, String> names, PrintStream out) {
+		for (Change change : changes) {
+			out.println(change.describe(url -> names.getOrDefault(url, url)));
 		}
+	}
 
-		Set<String> allDirectories = new LinkedHashSet<>(oldDirectoryChildren.keySet());
-		allDirectories.addAll(newDirectoryChildren.keySet());
+	// Linear in the size of both directories: every membership test is a hash lookup.
+	// Changes come in link order: deleted and added directories, the changes inside
+	// directories present in both, then deleted and added files.
+	// Subtrees with equal Merkle hashes are identical and are not descended into.
+	private static void diff(TreeNode previous, TreeNode latest, List<Change> changes) {
+		if (previous.merkle() != null && previous.merkle().equals(latest.merkle())) {
+			return;
+		}
+		Map<String, TreeNode> oldDirectoryChildren = index(previous.directories());
+		Map<String, TreeNode> newDirectoryChildren = index(latest.directories());
 
 		for (String directory : oldDirectoryChildren.keySet()) {
-			if (!newDirectoryChildren.keySet().contains(directory)) {
-				System.out.println(directory + " deleted!");
-				allDirectories.remove(directory);
+			if (!newDirectoryChildren.containsKey(directory)) {
+				changes.add(new Change(Change.Type.DELETED, true, directory, previous.url()));
 			}
 		}
 		for (String directory : newDirectoryChildren.keySet()) {
-			if (!oldDirectoryChildren.keySet().contains(directory)) {
-				System.out.println(directory + " added!");
-				allDirectories.remove(directory);
+			if (!oldDirectoryChildren.containsKey(directory)) {
+				changes.add(new Change(Change.Type.ADDED, true, directory, latest.url()));
 			}
 		}
-		for (String directory : allDirectories) {
-			diff(oldDirectoryChildren.get(directory), newDirectoryChildren.get(directory));
+		for (Map.Entry<String, TreeNode> directory : oldDirectoryChildren.entrySet()) {
+			TreeNode latestDirectory = newDirectoryChildren.get(directory.getKey());
+			if (latestDirectory != null) {
+				diff(directory.getValue(), latestDirectory, changes);
+			}
+		}
+
+		List<String> oldFiles = previous.files();
+		List<String> newFiles = latest.files();
+		if (oldFiles.equals(newFiles)) {
+			return;
 		}
-		
-        for (String file : previous.fileChildren) {
-			if (!latest.fileChildren.contains(file)) {
-				System.out.println(file + " deleted!");
+		Set<String> oldFileSet = new HashSet<>(oldFiles);
+		Set<String> newFileSet = new HashSet<>(newFiles);
+		for (String file : oldFiles) {
+			if (!newFileSet.contains(file)) {
+				changes.add(new Change(Change.Type.DELETED, false, file, previous.url()));
 			}
 		}
-		for (String file : latest.fileChildren) {
-			if (!previous.fileChildren.contains(file)) {
-				System.out.println(file + " added!");
+		for (String file : newFiles) {
+			if (!oldFileSet.contains(file)) {
+				changes.add(new Change(Change.Type.ADDED, false, file, latest.url()));
 			}
 		}
 	}
 
+	private static Map<String, TreeNode> index(List<? extends TreeNode> directories) {
+		Map<String, TreeNode> index = new LinkedHashMap<>(directories.size() * 2);
+		for (TreeNode directory : directories) {
+			index.putIfAbsent(directory.url(), directory);
+		}
+		return index;
+	}
+
+	// The session cookie is read from cookie.ser once and then served from memory;
+	// updates are written back on a background thread, in order.
+	private static volatile String session;
+	private static final Object sessionLock = new Object();
+	private static final ExecutorService cookieWriter = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "cookie-writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
 	public static String getCookie() {
+		String cookie = session;
+		if (cookie == null) {
+			synchronized (sessionLock) {
+				if (session == null) {
+					session = readCookie();
+				}
+				cookie = session;
+			}
+		}
+		return cookie;
+	}
+
+	private static String readCookie() {
 		String cookie = null;
 		try {
 			FileInputStream fileInputStream = new FileInputStream("cookie.ser");
@@ -227,15 +2191,54 @@ public class Tree {
 			objectInputStream.close();
 			fileInputStream.close();
 		} catch (IOException e) {
-			updateCookie();
-			cookie = getCookie();
+			cookie = updateCookie(null);
 		} catch (ClassNotFoundException e) {
 			throw new RuntimeException(e);
 		}
 		return cookie;
 	}
 
+	private static CompletableFuture<String> relogin;
+
 	public static void updateCookie() {
+		updateCookie(session);
+	}
+
+	// Single-flight re-login: callers pass the cookie they found expired. If the
+	// session has moved on since, the newer cookie is returned; otherwise the first
+	// caller logs in and everyone else waits for that same login.
+	public static String updateCookie(String expired) {
+		CompletableFuture<String> flight;
+		boolean leader = false;
+		synchronized (sessionLock) {
+			String current = session;
+			if (current != null && !current.equals(expired)) {
+				return current;
+			}
+			if (relogin == null) {
+				relogin = new CompletableFuture<>();
+				leader = true;
+			}
+			flight = relogin;
+		}
+		if (leader) {
+			try {
+				String cookie = login();
+				session = cookie;
+				cookieWriter.execute(() -> writeCookie(cookie));
+				flight.complete(cookie);
+			} catch (RuntimeException e) {
+				flight.completeExceptionally(e);
+			} finally {
+				synchronized (sessionLock) {
+					relogin = null;
+				}
+			}
+		}
+		return join(flight);
+	}
+
+	private static String login() {
 		String username, password, cookie = "";
 
 		File file = new File("credentials.txt");
@@ -250,25 +2253,23 @@ public class Tree {
 		}
 
 		try {
-			Connection.Response response = Jsoup.connect("https://eclass.aueb.gr/main/login_form.php")
-					.method(Connection.Method.GET).execute();
-			Document doc = response.parse();
-
+			Http.Response response = Http.get("https://eclass.aueb.gr/main/login_form.php", null, Map.of());
 			cookie = response.cookie("PHPSESSID");
 
-			Connection connection = Jsoup.connect("https://eclass.aueb.gr/?login_page=1")
-					.method(Connection.Method.POST)
-					.cookie("PHPSESSID", cookie)
-					.data("uname", username)
-					.data("pass", password)
-					.data("submit", "Είσοδος");
-
-			Connection.Response loginResponse = connection.execute();
+			Map<String, String> form = new LinkedHashMap<>();
+			form.put("uname", username);
+			form.put("pass", password);
+			form.put("submit", "Είσοδος");
+			Http.post("https://eclass.aueb.gr/?login_page=1", cookie, form);
 
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 
+		return cookie;
+	}
+
+	private static void writeCookie(String cookie) {
 		FileOutputStream fileOut;
 		try {
 			fileOut = new FileOutputStream("cookie.ser");
@@ -285,88 +2286,287 @@ public class Tree {
 		}
 	}
 
+	public static void flushCookie() {
+		cookieWriter.shutdown();
+		try {
+			cookieWriter.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// Downloads are named by their Content-Disposition; directories keep their url.
 	public static String trueName(String url) {
-        if (url.contains("&openDir=")) {
-			Document doc;
+		if (url.contains("&download")) {
+			NameCache.Entry entry = resolve(url);
+			return entry != null ? entry.name : url;
+		}
+		return url;
+	}
+
+	public static String trueName(String url, NameCache names) {
+		if (url.contains("&download")) {
+			return names.resolve(List.of(url), null).get(url);
+		}
+		return trueName(url);
+	}
+
+	private static final Pattern FILENAME = Pattern.compile("filename=\"?(.+?)\"?(;|$)");
+	// Resolved download names of one course, kept next to its snapshot in
+	// <course>.names and consulted before any HEAD request is made.
+	public static class NameCache {
+		public static class Entry implements Serializable {
+			private static final long serialVersionUID = -6097543894899985133L;
+
+			public String name;
+			// Content-Length, or -1 when the server did not send one
+			public long size = -1;
+			public long lastSeen;
+		}
+
+		private final String filename;
+		private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+		private volatile boolean dirty;
+
+		public NameCache(String filename) {
+			this.filename = filename;
+		}
+
+		@SuppressWarnings("unchecked")
+		public static NameCache load(int CourseNum) {
+			NameCache cache = new NameCache(CourseNum+".names");
 			try {
-				doc = Jsoup.connect(url).cookies(Collections.singletonMap("PHPSESSID", getCookie())).get();
-				if (!doc.html().contains("Λήψη όλου του καταλόγου")) {
-					updateCookie();
-					doc = Jsoup.connect(url).cookies(Collections.singletonMap("PHPSESSID", getCookie())).get();
-					System.out.println("here");
-				}
+				FileInputStream fileInputStream = new FileInputStream(cache.filename);
+				ObjectInputStream objectInputStream = new ObjectInputStream(fileInputStream);
+				cache.entries.putAll((Map<String, Entry>) objectInputStream.readObject());
+				objectInputStream.close();
+				fileInputStream.close();
+			} catch (ClassNotFoundException e) {
+				e.printStackTrace();
 			} catch (IOException e) {
-				throw new RuntimeException(e);
-			}
-			//System.out.println("a[href="+url.substring(22)+"]");
-			Elements links = doc.select("a[href]");
-			for (Element link: links) {
-				System.out.println(link);
+				// first run: nothing resolved yet
 			}
+			return cache;
+		}
 
-		} else if (url.contains("&download")) {
-			URL href;
-			try {
-				href = new URL(url);
-			} catch (MalformedURLException e) {
-				throw new RuntimeException(e);
+		public void save() {
+			if (!dirty) {
+				return;
 			}
-			HttpURLConnection connection = null;
 			try {
-				connection = (HttpURLConnection) href.openConnection();
+				FileOutputStream fileOut = new FileOutputStream(filename);
+				ObjectOutputStream out = new ObjectOutputStream(fileOut);
+				out.writeObject(new HashMap<>(entries));
+				out.close();
+				fileOut.close();
 			} catch (IOException e) {
 				throw new RuntimeException(e);
 			}
+		}
 
-			try {
-				connection.setRequestMethod("HEAD");
-			} catch (ProtocolException e) {
-				throw new RuntimeException(e);
+		public Entry get(String url) {
+			Entry entry = entries.get(url);
+			if (entry != null) {
+				entry.lastSeen = System.currentTimeMillis();
+				dirty = true;
 			}
+			return entry;
+		}
 
-			Map<String, java.util.List<String>> headers = connection.getHeaderFields();
-
-			if (!headers.containsKey("Content-Disposition")) {
-				try {
-					connection = (HttpURLConnection) href.openConnection();
-				} catch (IOException e) {
-					throw new RuntimeException(e);
+		// Names for the given download urls: cached ones as they are, the rest
+		// requested concurrently (when given an executor) within the per-host limit.
+		// Failed lookups are shown by their url and asked for again next time.
+		public Map<String, String> resolve(Collection<String> urls, ExecutorService executor) {
+			Map<String, Future<Entry>> pending = new LinkedHashMap<>();
+			for (String url : urls) {
+				if (get(url) == null && !pending.containsKey(url)) {
+					Callable<Entry> task = () -> Tree.resolve(url);
+					pending.put(url, executor != null ? executor.submit(task) : CompletableFuture.completedFuture(call(task)));
 				}
-				connection.setRequestProperty("Cookie", "PHPSESSID="+getCookie());
-				headers = connection.getHeaderFields();
 			}
-			if (!headers.containsKey("Content-Disposition")) {
-				try {
-					connection = (HttpURLConnection) href.openConnection();
-				} catch (IOException e) {
-					throw new RuntimeException(e);
+			for (Map.Entry<String, Future<Entry>> entry : pending.entrySet()) {
+				Entry resolved = join(entry.getValue());
+				if (resolved != null) {
+					entries.put(entry.getKey(), resolved);
+					dirty = true;
 				}
-				updateCookie();
-				connection.setRequestProperty("Cookie", "PHPSESSID="+getCookie());
-				headers = connection.getHeaderFields();
 			}
+			Map<String, String> resolved = new LinkedHashMap<>();
+			for (String url : urls) {
+				Entry entry = entries.get(url);
+				resolved.put(url, entry != null ? entry.name : url);
+			}
+			return resolved;
+		}
+
+		// Forgets deleted and moved-away files, including everything that was in a
+		// deleted directory, so a reused url is never shown under a stale name.
+		public void invalidate(List<Change> changes) {
+			for (Change change : changes) {
+				String url = change.type == Change.Type.MOVED ? change.from : change.url;
+				if (change.type == Change.Type.ADDED) {
+					continue;
+				}
+				if (!change.directory) {
+					dirty |= entries.remove(url) != null;
+				} else if (url.contains("&openDir=")) {
+					String directory = "&download=" + url.substring(url.indexOf("&openDir=") + "&openDir=".length()) + "/";
+					dirty |= entries.keySet().removeIf(file -> file.contains(directory));
+				}
+			}
+		}
+	}
 
-			Pattern pattern = Pattern.compile("filename=(.+?)(;|])");
-			Matcher matcher = pattern.matcher(headers.get("Content-Disposition").toString());
+	public static Map<String, String> trueNames(TreeNode root, NameCache names, ExecutorService executor) {
+		List<String> urls = new ArrayList<>();
+		downloads(root, urls);
+		return names.resolve(urls, executor);
+	}
+
+	private static <T> T call(Callable<T> task) {
+		try {
+			return task.call();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void downloads(TreeNode node, List<String> urls) {
+		for (String file : node.files()) {
+			if (file.contains("&download")) {
+				urls.add(file);
+			}
+		}
+		for (TreeNode child : node.directories()) {
+			downloads(child, urls);
+		}
+	}
 
+	// HEAD with the session cookie; the filename comes from Content-Disposition.
+	// An expired session answers with the HTML login page instead, and only then is
+	// the session renewed and the request repeated. Returns null when the lookup
+	// failed (an error status, or still a page instead of the file), so that it is
+	// not cached; a plain 2xx file response without the header keeps its url.
+	public static NameCache.Entry resolve(String url) {
+		Http.Response response;
+		try {
+			String cookie = getCookie();
+			response = Http.head(url, cookie);
+			if (page(response)) {
+				cookie = updateCookie(cookie);
+				response = Http.head(url, cookie);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		if (response.header("Content-Disposition") == null && (response.status / 100 != 2 || page(response))) {
+			return null;
+		}
+		HttpHeaders headers = response.headers;
+		NameCache.Entry entry = new NameCache.Entry();
+		entry.name = url;
+		entry.size = headers.firstValueAsLong("Content-Length").orElse(-1);
+		entry.lastSeen = System.currentTimeMillis();
+		Optional<String> disposition = headers.firstValue("Content-Disposition");
+		if (disposition.isPresent()) {
+			Matcher matcher = FILENAME.matcher(disposition.get());
 			if (matcher.find()) {
-				return matcher.group(1);
-			} else {
-				return url;
+				entry.name = matcher.group(1);
 			}
 		}
-		return url;
+		return entry;
+	}
+
+	private static boolean page(Http.Response response) {
+		return response.status / 100 == 2 && response.header("Content-Disposition") == null
+				&& String.valueOf(response.header("Content-Type")).startsWith("text/html");
+	}
+
+	// Names for the files in a change list. Deleted files are only looked up in the
+	// cache, since asking the server about them would just look like an expired session.
+	public static Map<String, String> readable(List<Change> changes, NameCache names, ExecutorService executor) {
+		List<String> present = new ArrayList<>();
+		Map<String, String> readable = new HashMap<>();
+		for (Change change : changes) {
+			if (change.directory) {
+				continue;
+			}
+			if (change.type != Change.Type.DELETED) {
+				present.add(change.url);
+			}
+			String from = change.type == Change.Type.MOVED ? change.from : change.type == Change.Type.DELETED ? change.url : null;
+			NameCache.Entry cached = from == null ? null : names.get(from);
+			if (cached != null) {
+				readable.put(from, cached.name);
+			}
+		}
+		readable.putAll(names.resolve(present, executor));
+		return readable;
+	}
+
+	public static String update(int CourseNum, String name, ExecutorService executor) {
+		String url =  "https://eclass.aueb.gr/modules/document/index.php?course=INF" + CourseNum;
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(buffer, true, StandardCharsets.UTF_8);
+		out.println(name);
+		TreeNode oldRoot = Snapshot.map(CourseNum+".ser");
+		Journal journal = Journal.open(CourseNum);
+		Node newRoot;
+		try {
+			newRoot = gen(url, url.equals(oldRoot.url()) ? oldRoot : null, executor, journal);
+		} finally {
+			journal.close();
+		}
+		List<Change> changes = diff(oldRoot, newRoot);
+		NameCache names = NameCache.load(CourseNum);
+		Map<String, String> readable = NAMES ? readable(changes, names, executor) : Map.of();
+		names.invalidate(changes);
+		report(changes, readable, out);
+		save(newRoot, CourseNum);
+		journal.finish();
+		names.save();
+		out.close();
+		return buffer.toString(StandardCharsets.UTF_8);
 	}
 
 	public static void main(String[] args) {
-		Map<Integer, String> courses = Map.of(161, "Algorithms", 148, "Automata and Complexity", 218, "Databases", 168, "Operating Systems");
-                for (int CourseNum : courses.keySet()) {
-			String url =  "https://eclass.aueb.gr/modules/document/index.php?course=INF" + CourseNum;
-                        System.out.println(courses.get(CourseNum));
-			Node oldRoot = load(CourseNum+".ser");
-			Node newRoot = gen(url);
-			diff(oldRoot, newRoot);
-			save(newRoot, CourseNum);
+		Map<Integer, String> courses = new TreeMap<>(Map.of(161, "Algorithms", 148, "Automata and Complexity", 218, "Databases", 168, "Operating Systems"));
+		ExecutorService executor = CONCURRENCY > 1 ? crawlExecutor() : null;
+		ExecutorService courseExecutor = Executors.newFixedThreadPool(Math.max(1, COURSE_CONCURRENCY));
+		try {
+			// Courses run concurrently, but each report is printed whole and in course order.
+			// A failed course does not hold back the others: their snapshots are saved
+			// by then, so their reports must be printed now or never. Validators are
+			// only kept when every course went through, or the failed course's pages
+			// would look unchanged next time.
+			Map<Integer, Future<String>> reports = new LinkedHashMap<>();
+			for (int CourseNum : courses.keySet()) {
+				reports.put(CourseNum, courseExecutor.submit(() -> update(CourseNum, courses.get(CourseNum), executor)));
+			}
+			RuntimeException failure = null;
+			for (Map.Entry<Integer, Future<String>> report : reports.entrySet()) {
+				try {
+					System.out.print(join(report.getValue()));
+				} catch (RuntimeException e) {
+					System.err.println(courses.get(report.getKey()) + ": failed, " + e);
+					if (failure == null) {
+						failure = e;
+					}
+				}
+				System.out.flush();
+			}
+			if (failure != null) {
+				throw failure;
+			}
+			saveValidators();
+		} finally {
+			courseExecutor.shutdown();
+			if (executor != null) {
+				executor.shutdown();
+			}
+			flushCookie();
 		}
 	}
 }